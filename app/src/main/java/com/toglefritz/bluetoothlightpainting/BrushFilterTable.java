@@ -0,0 +1,27 @@
+package com.toglefritz.bluetoothlightpainting;
+
+import android.graphics.ColorFilter;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffColorFilter;
+
+/*
+ This class holds one color filter for each of the RssiColorMapper.LEVELS possible brush colors.
+ The filters are all created up front, so that changing the color of the brushes only looks up an
+ existing filter instead of allocating a new one on every color change.
+*/
+public class BrushFilterTable {
+
+    private final ColorFilter[] filters = new ColorFilter[RssiColorMapper.LEVELS];
+
+    public BrushFilterTable() {
+        for (int level = 0; level < filters.length; level++) {
+            filters[level] = new PorterDuffColorFilter(RssiColorMapper.colorForLevel(level),
+                    PorterDuff.Mode.SRC_ATOP);
+        }
+    }
+
+    // Get the filter for a mapped RSSI value, as returned by RssiColorMapper.getLevel()
+    public ColorFilter get(int level) {
+        return filters[level];
+    }
+}
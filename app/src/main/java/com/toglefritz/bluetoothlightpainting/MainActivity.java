@@ -33,8 +33,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.graphics.Color;
-import android.graphics.PorterDuff;
+import android.graphics.ColorFilter;
 import android.provider.Settings;
 import android.support.constraint.ConstraintLayout;
 import android.support.v7.app.AlertDialog;
@@ -42,6 +41,7 @@ import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.support.v7.view.menu.MenuAdapter;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.MotionEvent;
 import android.view.View;
 import android.widget.Button;
@@ -58,6 +58,7 @@ import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static android.telecom.Call.STATE_DISCONNECTED;
 
@@ -71,21 +72,34 @@ public class MainActivity extends AppCompatActivity  {
     private float x1,x2, y1, y2;
     static final int MIN_DISTANCE = 150;
 
-    // These two variables are used to configure the bounds of the RSSI values.
-    // You may wish to change these values to suit your own devices.
-    // Note that RSSI values are actually negative. Therefore, when we look at the absolute value
-    // of the RSSI value, a lower number indicates a stronger signal.
-    long rssiMin = 15;
-    long rssiMax = 1;
+    // This object converts RSSI values to color values for the brushes
+    final RssiColorMapper colorMapper = new RssiColorMapper();
 
-    // This variable is used to convert RSSI values to color values
-    long mappedRSSI = 0;
+    // The brushes whose color is set according to the RSSI value
+    ImageView[] brushes;
 
-    // The ultimate goal of this entire app is to set the color of the dots on the screen based on
-    // an RSSI value from a Bluetooth connection. The color is expressed in RGB format.
-    int red = 0;
-    int green = 0;
-    int blue = 0;
+    // This frame callback sets the color of the brushes on the UI thread. It is created once and
+    // reused for every RSSI reading because creating a new callback once per millisecond produces
+    // enough garbage to cause visible stutters in the long exposure photographs.
+    final Choreographer.FrameCallback brushUpdater = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            // Clear the flag first, so that a reading arriving while we redraw queues another update
+            brushUpdatePending.set(false);
+            updateBrushes();
+        }
+    };
+
+    // The RSSI is read once per millisecond, but the screen can only show a new color once per
+    // frame. The brushes are therefore updated from a Choreographer frame callback, which runs in
+    // step with the display, and this flag makes sure that at most one update is waiting for the
+    // next frame.
+    Choreographer choreographer;
+    final AtomicBoolean brushUpdatePending = new AtomicBoolean(false);
+
+    // One color filter for each possible brush color. ImageView.setColorFilter(int, Mode) creates
+    // a new PorterDuffColorFilter on every call, so the filters are created once here instead.
+    final BrushFilterTable brushFilters = new BrushFilterTable();
 
     // This is a constant variable we use later on if we need to prompt the user to turn
     // Bluetooth on.
@@ -119,9 +133,56 @@ public class MainActivity extends AppCompatActivity  {
         final ImageView cbrush5 = (ImageView) findViewById(R.id.cbrush5);
         final ImageView scbrush1 = (ImageView) findViewById(R.id.scbrush1);
         final ImageView bbrush1 = (ImageView) findViewById(R.id.bbrush1);
-        final ImageView[] brushes = new ImageView[]{sbrush1, sbrush2, sbrush3, sbrush4, sbrush5,
+        brushes = new ImageView[]{sbrush1, sbrush2, sbrush3, sbrush4, sbrush5,
                 cbrush1, cbrush2, cbrush3, cbrush4, cbrush5, scbrush1, bbrush1};
 
+        // The Choreographer has to be fetched on the UI thread, it is used from the Bluetooth thread
+        choreographer = Choreographer.getInstance();
+
+        try {
+            // Connect to the Bluetooth device and, after a successful connection is made,
+            // start measuring the Bluetooth RSSI once per millisecond
+            startRssiTimer(connectRssiSource(selectedDevice));
+        }
+        catch (IOException e) {
+            // We get here if the app fails to connect to a bonded Bluetooth
+            // device. This is most likely because the selected device is
+            // turned off or not within Bluetooth range. The user will be
+            // prompted to check the device settings and afterwords, the
+            // app will restart.
+            Log.d(TAG, "" + e);
+            e.printStackTrace();
+            new AlertDialog.Builder(MainActivity.this)
+                    .setTitle("Connection failed!")
+                    .setMessage("I'm sorry. I did not manage to connect to your Bluetooth device.")
+                    .setPositiveButton("Check Settings", new DialogInterface.OnClickListener() {
+                        public void onClick(DialogInterface dialog, int which) {
+                            // Send user to the Bluetooth settings
+                            startActivityForResult(new Intent(Settings.ACTION_BLUETOOTH_SETTINGS), 0);
+                        }
+                    })
+                    .setNegativeButton("Exit", new DialogInterface.OnClickListener() {
+                        public void onClick(DialogInterface dialog, int which) {
+                            // Close the app
+                            System.exit(0);
+                        }
+                    })
+                    .setIcon(R.drawable.ic_error_black_24dp)
+                    .show();
+        }
+    }
+
+    // This is the source of the RSSI readings. Normally it reads from the BluetoothGatt connection
+    // to the selected device, but the tests replace it with a fake so that MainActivity can be
+    // exercised without a phone or a Bluetooth device.
+    interface RssiSource {
+        // Request a new RSSI reading. The result is delivered to mGattCallback.onReadRemoteRssi.
+        boolean readRemoteRssi();
+    }
+
+    // Connect to the Bluetooth device chosen in the BluetoothSelectActivity and return a source
+    // of RSSI readings for it. Throws an IOException if the connection fails.
+    RssiSource connectRssiSource(String selectedDevice) throws IOException {
         /*
          To work with Bluetooth, we need to first establish a programatic connection with
          the phone's Bluetooth radio, called the Bluetooth adapter. For more information
@@ -151,7 +212,6 @@ public class MainActivity extends AppCompatActivity  {
         UUID uuid = mdevice.getUuids()[0].getUuid();
         Log.d(TAG, "" + uuid);
 
-
         try {
             // Always cancel discovery because it will slow down a connection
             mBluetoothAdapter.cancelDiscovery();
@@ -161,67 +221,47 @@ public class MainActivity extends AppCompatActivity  {
         } catch (IOException e) {
             Log.d(TAG, "Failed to create socket");
         }
-        try {
-            Log.d(TAG, "Attempting to connect. Attempt 1.");
-            // Connect to the Bluetooth device
-            mSocket.connect();
-            Log.d(TAG, "Successfully connected");
-
-            // After a successful connection is made, set a timer
-            // to measure the Bluetooth RSSI once per millisecond
-            final BluetoothGatt mBluetoothGatt = mdevice.connectGatt
-                    (MainActivity.this, false, mGattCallback);
-            new Timer().schedule(new TimerTask() {
-                public void run() {
-                    // Read Bluetooth RSSI. When this happens, it
-                    // triggers a call to the onReadRemoteRssi
-                    // function down below. It is inside that function
-                    // where the RSSI is mapped to a color value
-                    // for the dots on the phone screen.
-                    boolean readRssiFlag = mBluetoothGatt.readRemoteRssi();
-
-                    // Once we've measured the RSSI value mapped it
-                    // to a value for red, green, and blue, we can now
-                    // set the color of the dots on the screen to
-                    // that value
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            for (ImageView brush : brushes) {
-                                // Set the color of the brushes
-                                brush.setColorFilter(Color.rgb(red, green, blue),
-                                        PorterDuff.Mode.SRC_ATOP);
-                            }
-                        }
-                    });
-                }
-            }, 1, 1);
-        }
-        catch (IOException e) {
-            // We get here if the app fails to connect to a bonded Bluetooth
-            // device. This is most likely because the selected device is
-            // turned off or not within Bluetooth range. The user will be
-            // prompted to check the device settings and afterwords, the
-            // app will restart.
-            Log.d(TAG, "" + e);
-            e.printStackTrace();
-            new AlertDialog.Builder(MainActivity.this)
-                    .setTitle("Connection failed!")
-                    .setMessage("I'm sorry. I did not manage to connect to your Bluetooth device.")
-                    .setPositiveButton("Check Settings", new DialogInterface.OnClickListener() {
-                        public void onClick(DialogInterface dialog, int which) {
-                            // Send user to the Bluetooth settings
-                            startActivityForResult(new Intent(Settings.ACTION_BLUETOOTH_SETTINGS), 0);
-                        }
-                    })
-                    .setNegativeButton("Exit", new DialogInterface.OnClickListener() {
-                        public void onClick(DialogInterface dialog, int which) {
-                            // Close the app
-                            System.exit(0);
-                        }
-                    })
-                    .setIcon(R.drawable.ic_error_black_24dp)
-                    .show();
+        Log.d(TAG, "Attempting to connect. Attempt 1.");
+        // Connect to the Bluetooth device
+        mSocket.connect();
+        Log.d(TAG, "Successfully connected");
+
+        final BluetoothGatt mBluetoothGatt = mdevice.connectGatt
+                (MainActivity.this, false, mGattCallback);
+        return new RssiSource() {
+            @Override
+            public boolean readRemoteRssi() {
+                return mBluetoothGatt.readRemoteRssi();
+            }
+        };
+    }
+
+    // Set a timer to measure the Bluetooth RSSI once per millisecond
+    void startRssiTimer(final RssiSource rssiSource) {
+        scheduleRssiTimer(new TimerTask() {
+            public void run() {
+                // Read Bluetooth RSSI. When this happens, it
+                // triggers a call to the onReadRemoteRssi
+                // function down below. It is inside that function
+                // where the RSSI is mapped to a color value
+                // for the dots on the phone screen.
+                rssiSource.readRemoteRssi();
+            }
+        }, 1);
+    }
+
+    // Run the RSSI timer task repeatedly, once every periodMillis milliseconds. The tests replace
+    // this to run the task on a simulated clock.
+    void scheduleRssiTimer(TimerTask task, long periodMillis) {
+        new Timer().schedule(task, periodMillis, periodMillis);
+    }
+
+    // Set the color of all of the brushes to the latest color from the RSSI readings
+    void updateBrushes() {
+        ColorFilter filter = brushFilters.get(colorMapper.getLevel());
+        for (ImageView brush : brushes) {
+            // Set the color of the brushes
+            brush.setColorFilter(filter);
         }
     }
 
@@ -289,14 +329,13 @@ public class MainActivity extends AppCompatActivity  {
                     else if (Math.abs(deltaY) > Math.abs(deltaX)) {
                         // Downward swipe
                         if(deltaY > 0) {
-                            rssiMin++;
-                            Toast.makeText(MainActivity.this, "Minimum RSSI: -" + rssiMin, Toast.LENGTH_SHORT).show();
+                            colorMapper.expandRange();
+                            Toast.makeText(MainActivity.this, "Minimum RSSI: -" + colorMapper.getRssiMin(), Toast.LENGTH_SHORT).show();
                         }
                         // Upward swipe
                         else if(deltaY < 0) {
-                            if(rssiMin > rssiMax + 5) {
-                                rssiMin--;
-                                Toast.makeText(MainActivity.this, "Minimum RSSI: -" + rssiMin,
+                            if(colorMapper.shrinkRange()) {
+                                Toast.makeText(MainActivity.this, "Minimum RSSI: -" + colorMapper.getRssiMin(),
                                         Toast.LENGTH_SHORT).show();
                             }
                             else {
@@ -313,75 +352,28 @@ public class MainActivity extends AppCompatActivity  {
     }
 
     // This is a callback for the BluetoothGatt connection
-    private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
+    final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
         @Override
         /*
          It is inside this function where a big chung of the work for the display is done. Up
          above, after connecting to the Bluetooth device, the app calls this function once per
          millisecond. This function reads the RSSI value for the currently connected device. This
          single value then must be mapped to three values: red, green, and blue. These three values
-         are used to determine the color for the dots on the screen. To map a single RSSI value to
-         a set of color values, a set of linear equations are used for each color channel.
-         The linear equations used are described in a spreadsheet:
-         https://drive.google.com/open?id=1SZRTu5d6wJdEmbz52OuqjMhpThPXu4DvGEEIlf1tvXM
+         are used to determine the color for the dots on the screen. The mapping itself is done by
+         the RssiColorMapper class. Because this runs once per millisecond, nothing in here may
+         allocate memory.
         */
         public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
-            // Convert thee RSSI value to a value between 0 and 255
-            mappedRSSI = map(-rssi, rssiMin, rssiMax, 0, 255);
-
-            // RED
-            // Convert the mapped RSSI value (between 0 and 255) to a value for the red channel
-            if(mappedRSSI < 127.5) {
-                // Below 50% of the pre-set RSSI range, there is no red in the dot color.
-                red = 0;
-            }
-            else {
-                // Otherwise, above 50% of the RSSI range, the value for red is determined by a
-                // linear equation in slope-intercept form.
-                red = (int) (2 * mappedRSSI - 255);
+            // Once we've measured the RSSI value and mapped it to a color, we can now set the
+            // color of the dots on the screen to that value. If the color did not change there
+            // is nothing to redraw, so we skip the trip to the UI thread entirely. If an update is
+            // already waiting, it will pick up the new color when it runs.
+            if (colorMapper.onRssi(rssi) && brushUpdatePending.compareAndSet(false, true)) {
+                choreographer.postFrameCallback(brushUpdater);
             }
-
-            // GREEN
-            // Convert the mapped RSSI value to a value for the green channel
-            if(mappedRSSI < 127.5) {
-                // Below 50% of the RSSI range, the value for green increases towards
-                // its maximum at 127.5
-                green = (int) (2 * mappedRSSI);
-            }
-            else {
-                // Above 50% of the RSSI range, the value for three decreases towards zero
-                green = (int) (-2 * mappedRSSI + 510);
-            }
-
-            // BLUE
-            // Convert the mapped RSSI value to a value for the blue channel
-            if(mappedRSSI < 127.5) {
-                // Below 50% of the RSSI range, the value for blue is determined by
-                // a linear equation
-                blue = (int) (-2 * mappedRSSI + 255);
-            }
-            else if(mappedRSSI > 127.5) {
-                // Above 50% of the RSSI range, there is no blue in the dot color
-                blue = 0;
-            }
-
-            //Log.i(TAG, "Color: (" + red + ", " + green + ", " + blue + ")");
         }
     };
 
-    // This is a simple function that will map one set of values to another. It is used to
-    // normalize the RSSI values we get while running the app.
-    long map(long x, long in_min, long in_max, long out_min, long out_max) {
-        long mappedValue = (x - in_min) * (out_max - out_min) / (in_max - in_min) + out_min;
-        if(mappedValue > out_max) {
-            mappedValue = out_max;
-        }
-        else if(mappedValue < out_min) {
-            mappedValue = out_min;
-        }
-        return mappedValue;
-    }
-
     // If the user exits the application and restarts it, we want the app to reset and start over
     // to make sure the correct Bluetooth device is being connected. This will also happen if
     // a Bluetooth connection fails and the user go to and then returns from the Bluetooth settings.
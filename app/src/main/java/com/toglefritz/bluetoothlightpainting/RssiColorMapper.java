@@ -0,0 +1,132 @@
+package com.toglefritz.bluetoothlightpainting;
+
+/*
+ This class turns RSSI readings into a color for the brushes on the screen. It does not depend on
+ any Android classes, so it can be tested on the development machine.
+
+ The RSSI callback fires once per millisecond, so nothing in here is allowed to allocate memory.
+ Every allocation would eventually cause a garbage collection pause, and those pauses show up as
+ gaps and stutters in the light trails of the long-exposure photographs. The level is therefore
+ kept in a primitive field, each color is packed into a single int by hand instead of using
+ Color.rgb(), and the brushes are colored with filters looked up from a BrushFilterTable by level.
+*/
+public class RssiColorMapper {
+
+    // These two variables are used to configure the bounds of the RSSI values.
+    // You may wish to change these values to suit your own devices.
+    // Note that RSSI values are actually negative. Therefore, when we look at the absolute value
+    // of the RSSI value, a lower number indicates a stronger signal.
+    long rssiMin = 15;
+    long rssiMax = 1;
+
+    // The RSSI values are mapped onto this many levels, so there are only this many possible
+    // colors for the brushes
+    static final int LEVELS = 256;
+
+    // The most recent mapped RSSI value. This is written from the Bluetooth thread and read from
+    // the UI thread, hence volatile. It starts out of range so that the first reading always
+    // counts as a change.
+    private volatile int level = -1;
+
+    /*
+     Map a single RSSI value onto one of the LEVELS brush colors. Returns true if the color of the
+     brushes changed, so that the caller only needs to redraw the screen when there is actually
+     something new to show.
+    */
+    public boolean onRssi(int rssi) {
+        // Convert thee RSSI value to a value between 0 and 255
+        long mappedRSSI = map(-rssi, rssiMin, rssiMax, 0, LEVELS - 1);
+        if(mappedRSSI == level) {
+            return false;
+        }
+        level = (int) mappedRSSI;
+        return true;
+    }
+
+    /*
+     Convert a mapped RSSI value (between 0 and 255) to a color. A set of linear equations are used
+     for each color channel. The linear equations used are described in a spreadsheet:
+     https://drive.google.com/open?id=1SZRTu5d6wJdEmbz52OuqjMhpThPXu4DvGEEIlf1tvXM
+    */
+    static int colorForLevel(long mappedRSSI) {
+        int red;
+        int green;
+        int blue;
+
+        // RED
+        // Convert the mapped RSSI value (between 0 and 255) to a value for the red channel
+        if(mappedRSSI < 127.5) {
+            // Below 50% of the pre-set RSSI range, there is no red in the dot color.
+            red = 0;
+        }
+        else {
+            // Otherwise, above 50% of the RSSI range, the value for red is determined by a
+            // linear equation in slope-intercept form.
+            red = (int) (2 * mappedRSSI - 255);
+        }
+
+        // GREEN
+        // Convert the mapped RSSI value to a value for the green channel
+        if(mappedRSSI < 127.5) {
+            // Below 50% of the RSSI range, the value for green increases towards
+            // its maximum at 127.5
+            green = (int) (2 * mappedRSSI);
+        }
+        else {
+            // Above 50% of the RSSI range, the value for three decreases towards zero
+            green = (int) (-2 * mappedRSSI + 510);
+        }
+
+        // BLUE
+        // Convert the mapped RSSI value to a value for the blue channel
+        if(mappedRSSI < 127.5) {
+            // Below 50% of the RSSI range, the value for blue is determined by
+            // a linear equation
+            blue = (int) (-2 * mappedRSSI + 255);
+        }
+        else {
+            // Above 50% of the RSSI range, there is no blue in the dot color
+            blue = 0;
+        }
+
+        // Pack the three channels into one int, the same way Color.rgb() does
+        return 0xFF000000 | (red << 16) | (green << 8) | blue;
+    }
+
+    // Get the most recent mapped RSSI value, between 0 and LEVELS - 1
+    public int getLevel() {
+        return level;
+    }
+
+    // Widen the RSSI range so that weaker signals are still shown, used when the user swipes down
+    public void expandRange() {
+        rssiMin++;
+    }
+
+    // Narrow the RSSI range towards the strongest signals, used when the user swipes up. Returns
+    // false if the range is already as small as it is allowed to be.
+    public boolean shrinkRange() {
+        if(rssiMin > rssiMax + 5) {
+            rssiMin--;
+            return true;
+        }
+        return false;
+    }
+
+    public long getRssiMin() {
+        return rssiMin;
+    }
+
+    // This is a simple function that will map one set of values to another. It is used to
+    // normalize the RSSI values we get while running the app.
+    static long map(long x, long in_min, long in_max, long out_min, long out_max) {
+        long mappedValue = (x - in_min) * (out_max - out_min) / (in_max - in_min) + out_min;
+        if(mappedValue > out_max) {
+            mappedValue = out_max;
+        }
+        else if(mappedValue < out_min) {
+            mappedValue = out_min;
+        }
+        return mappedValue;
+    }
+}
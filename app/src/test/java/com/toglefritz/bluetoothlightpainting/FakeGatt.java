@@ -0,0 +1,35 @@
+package com.toglefritz.bluetoothlightpainting;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+
+/**
+ * A local stand-in for the {@link BluetoothGatt} connection used by {@link MainActivity}. Every
+ * read immediately reports the next RSSI value from a repeating pattern to the activity's
+ * {@link BluetoothGattCallback}, on the thread that asked for the reading. Like a real device,
+ * the readings should therefore be requested from a background thread, not the UI thread.
+ */
+class FakeGatt implements MainActivity.RssiSource {
+
+    private final BluetoothGattCallback callback;
+    private int[] pattern = new int[]{-8};
+    private int next = 0;
+
+    FakeGatt(BluetoothGattCallback callback) {
+        this.callback = callback;
+    }
+
+    // Set the RSSI values reported by the following reads. The values repeat once they run out.
+    void setPattern(int... pattern) {
+        this.pattern = pattern;
+        next = 0;
+    }
+
+    @Override
+    public boolean readRemoteRssi() {
+        int rssi = pattern[next];
+        next = (next + 1) % pattern.length;
+        callback.onReadRemoteRssi(null, rssi, BluetoothGatt.GATT_SUCCESS);
+        return true;
+    }
+}
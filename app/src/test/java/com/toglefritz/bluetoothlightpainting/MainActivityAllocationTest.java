@@ -0,0 +1,151 @@
+package com.toglefritz.bluetoothlightpainting;
+
+import android.content.Intent;
+import android.graphics.ColorFilter;
+import android.view.Choreographer;
+import android.widget.ImageView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadow.api.Shadow;
+import org.robolectric.shadows.ShadowChoreographer;
+import org.robolectric.shadows.ShadowView;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the path from an RSSI reading to a brush update in {@link MainActivity} does not
+ * allocate any memory once it is warmed up. The activity's own RSSI timer task reads from a
+ * {@link FakeGatt}, which calls the activity's BluetoothGattCallback, and the frame callback that
+ * the activity posts is run for every simulated frame.
+ *
+ * Robolectric's own shadows allocate memory when a frame callback is posted or a view is
+ * invalidated, which a phone does not. The two places where MainActivity hands over to the
+ * framework are therefore recorded instead: {@link RecordingChoreographer} keeps the posted frame
+ * callback and {@link RecordingImageView} keeps the color filter of each brush. Everything in
+ * between runs for real.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25,
+        shadows = {MainActivityAllocationTest.RecordingChoreographer.class,
+                MainActivityAllocationTest.RecordingImageView.class})
+public class MainActivityAllocationTest {
+
+    private static final int SAMPLES = 100000;
+    private static final int WARMUP_ROUNDS = 20;
+
+    // With the RSSI read once per millisecond, a frame at 60 frames per second comes around
+    // every 16 or 17 readings
+    private static final int SAMPLES_PER_FRAME = 17;
+
+    private TestMainActivity activity;
+    private RecordingChoreographer choreographer;
+
+    @Before
+    public void setUp() throws Exception {
+        Intent intent = new Intent(RuntimeEnvironment.application, TestMainActivity.class);
+        intent.putExtra("bluetoothDeviceName", "Fake device");
+        activity = Robolectric.buildActivity(TestMainActivity.class, intent)
+                .create().start().resume().visible().get();
+        choreographer = Shadow.extract(activity.choreographer);
+        activity.fakeGatt.setPattern(-1, -3, -5, -7, -9, -11, -13, -15, -17, -15, -13, -11,
+                -9, -7, -5, -3);
+    }
+
+    @Test
+    public void rssiToBrushes_allocatesNothing() throws Exception {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assertTrue("This JVM cannot count allocated bytes per thread",
+                bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        assertTrue("This JVM cannot count allocated bytes per thread",
+                threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        // Warm up so that class loading and JIT compilation are not counted
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            simulate();
+        }
+        activity.uiMessages = 0;
+
+        // Measure the cost of reading the counter itself so that it can be subtracted
+        long overheadStart = threadBean.getThreadAllocatedBytes(threadId);
+        long overheadEnd = threadBean.getThreadAllocatedBytes(threadId);
+        long overhead = overheadEnd - overheadStart;
+
+        long start = threadBean.getThreadAllocatedBytes(threadId);
+        simulate();
+        long end = threadBean.getThreadAllocatedBytes(threadId);
+
+        assertTrue("Brushes were never redrawn", activity.uiMessages > 0);
+        assertEquals("Bytes allocated over " + SAMPLES + " samples", 0, end - start - overhead);
+
+        // The brushes must show the cached filter for the latest reading
+        for (ImageView brush : activity.brushes) {
+            RecordingImageView shadow = Shadow.extract(brush);
+            assertSame(activity.brushFilters.get(activity.colorMapper.getLevel()),
+                    shadow.colorFilter);
+        }
+    }
+
+    // Run the activity's RSSI timer task SAMPLES times, and run the frame callback waiting for
+    // the next frame, if there is one, after every SAMPLES_PER_FRAME readings. The last frame
+    // runs after the last reading, so that the brushes end up with the latest color.
+    private void simulate() {
+        for (int i = 1; i <= SAMPLES; i++) {
+            activity.rssiTimerTask.run();
+            if (i % SAMPLES_PER_FRAME == 0 || i == SAMPLES) {
+                choreographer.runFrame(i * 1000000L);
+            }
+        }
+    }
+
+    /**
+     * Keeps the frame callback posted by the activity until the test runs it, instead of posting
+     * it to the main looper.
+     */
+    @Implements(Choreographer.class)
+    public static class RecordingChoreographer extends ShadowChoreographer {
+        private Choreographer.FrameCallback pending;
+
+        @Implementation
+        public void postFrameCallbackDelayed(Choreographer.FrameCallback callback,
+                                             long delayMillis) {
+            pending = callback;
+        }
+
+        // Run the frame callback that is waiting for the next frame, if any
+        void runFrame(long frameTimeNanos) {
+            Choreographer.FrameCallback callback = pending;
+            if (callback != null) {
+                pending = null;
+                callback.doFrame(frameTimeNanos);
+            }
+        }
+    }
+
+    /**
+     * Keeps the color filter set on an ImageView instead of applying it to the drawable and
+     * invalidating the view.
+     */
+    @Implements(ImageView.class)
+    public static class RecordingImageView extends ShadowView {
+        ColorFilter colorFilter;
+
+        @Implementation
+        public void setColorFilter(ColorFilter colorFilter) {
+            this.colorFilter = colorFilter;
+        }
+    }
+}
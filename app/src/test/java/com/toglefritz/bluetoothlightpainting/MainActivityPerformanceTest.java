@@ -0,0 +1,228 @@
+package com.toglefritz.bluetoothlightpainting;
+
+import android.content.Intent;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.widget.ViewFlipper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.util.Scheduler;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Performance regression tests for the RSSI tick loop in {@link MainActivity}. The Bluetooth
+ * connection is replaced with a {@link FakeGatt} so that the tests run on the development machine
+ * without a phone or a Bluetooth device. The brushes in the inflated layout count their own
+ * invalidations, see {@link TestMainActivity.CountingImageView}.
+ *
+ * The activity's own timer task is run on a background thread, the way java.util.Timer would run
+ * it, while the main looper is advanced on a simulated clock from one vsync pulse to the next.
+ * Brush updates therefore go through the Choreographer and the real UI message queue. Only the
+ * java.util.Timer that repeats the task is not exercised.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class MainActivityPerformanceTest {
+
+    // The rates at which the timer task reads RSSI values. 1000 Hz matches the 1 ms timer used
+    // by MainActivity.
+    private static final int[] RATES_HZ = {10, 100, 1000};
+
+    // The simulated display refreshes this many times per second. Choreographer frame callbacks
+    // only run when the main looper is advanced to one of these vsync pulses.
+    private static final int FRAMES_PER_SECOND = 60;
+
+    // How long each rate is simulated for
+    private static final long DURATION_MILLIS = 1000;
+
+    // The screen cannot show more than one new color per frame, so there is no point in updating
+    // the brushes more often than that
+    private static final int MAX_UI_MESSAGES_PER_SECOND = FRAMES_PER_SECOND;
+
+    // A color change may invalidate each brush at most twice: once for the view and once for
+    // its drawable. Color changes that are skipped because a newer one arrived before the next
+    // frame cost nothing.
+    private static final int MAX_INVALIDATIONS_PER_BRUSH = 2;
+
+    // Updating the brushes must fit within a single frame at 60 frames per second
+    private static final long FRAME_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+
+    private TestMainActivity activity;
+    private TestMainActivity.CountingImageView[] brushes;
+    private ExecutorService timerThread;
+
+    @Before
+    public void setUp() throws Exception {
+        Intent intent = new Intent(RuntimeEnvironment.application, TestMainActivity.class);
+        intent.putExtra("bluetoothDeviceName", "Fake device");
+        activity = Robolectric.buildActivity(TestMainActivity.class, intent)
+                .create().start().resume().visible().get();
+        timerThread = Executors.newSingleThreadExecutor();
+
+        // The brushes in the layout are inflated as CountingImageViews by TestMainActivity
+        brushes = new TestMainActivity.CountingImageView[activity.brushes.length];
+        for (int i = 0; i < brushes.length; i++) {
+            brushes[i] = (TestMainActivity.CountingImageView) activity.brushes[i];
+        }
+        assertNotNull("The RSSI timer was never scheduled", activity.rssiTimerTask);
+        assertEquals(1, activity.rssiTimerPeriodMillis);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        timerThread.shutdownNow();
+    }
+
+    @Test
+    public void steadySignal_postsNoUiMessages() throws Exception {
+        for (int rate : RATES_HZ) {
+            activity.fakeGatt.setPattern(-8);
+            // The first reading may change the color from whatever was shown before
+            drive(rate, DURATION_MILLIS);
+            resetCounters();
+
+            int colorChanges = drive(rate, DURATION_MILLIS);
+
+            assertEquals("Color changes at " + rate + " Hz", 0, colorChanges);
+            assertEquals("UI messages at " + rate + " Hz", 0, activity.uiMessages);
+            assertEquals("Invalidations at " + rate + " Hz", 0, invalidations());
+        }
+    }
+
+    @Test
+    public void changingSignal_staysWithinBudgets() throws Exception {
+        for (int rate : RATES_HZ) {
+            activity.fakeGatt.setPattern(-1, -3, -5, -7, -9, -11, -13, -15, -17, -15, -13, -11,
+                    -9, -7, -5, -3);
+            resetCounters();
+
+            int colorChanges = drive(rate, DURATION_MILLIS);
+            double seconds = DURATION_MILLIS / 1000.0;
+
+            assertTrue("Signal never changed the color at " + rate + " Hz", colorChanges > 0);
+            assertTrue("No UI messages at " + rate + " Hz", activity.uiMessages > 0);
+            assertTrue("UI messages per second at " + rate + " Hz: " + activity.uiMessages,
+                    activity.uiMessages / seconds <= MAX_UI_MESSAGES_PER_SECOND);
+            assertTrue("Invalidations per color change at " + rate + " Hz: " + invalidations()
+                            + " for " + colorChanges + " color changes",
+                    (double) invalidations() / colorChanges
+                            <= brushes.length * MAX_INVALIDATIONS_PER_BRUSH);
+            assertTrue("Time per frame at " + rate + " Hz",
+                    activity.uiNanos / activity.uiMessages <= FRAME_BUDGET_NANOS);
+
+            // Once the queue is idle the brushes must show the latest color, even though
+            // readings were skipped
+            idle();
+            for (TestMainActivity.CountingImageView brush : brushes) {
+                assertSame(activity.brushFilters.get(activity.colorMapper.getLevel()),
+                        brush.getColorFilter());
+            }
+        }
+    }
+
+    @Test
+    public void horizontalSwipe_flipsBrushWithoutRedraw() throws Exception {
+        ViewFlipper flipper = (ViewFlipper) activity.findViewById(R.id.flipper);
+        resetCounters();
+
+        // Right to left swipe shows the next brush
+        swipe(600, 500, 100, 500);
+        idle();
+
+        assertEquals(1, flipper.getDisplayedChild());
+        assertEquals(0, activity.uiMessages);
+    }
+
+    @Test
+    public void verticalSwipe_redrawsOnNextSampleOnly() throws Exception {
+        activity.fakeGatt.setPattern(-8);
+        drive(1000, DURATION_MILLIS);
+        resetCounters();
+
+        // Downward swipe widens the RSSI range, which changes the color for the same signal
+        swipe(300, 100, 300, 600);
+        idle();
+        assertEquals(16, activity.colorMapper.getRssiMin());
+        assertEquals(0, activity.uiMessages);
+
+        drive(1000, DURATION_MILLIS);
+
+        assertEquals(1, activity.uiMessages);
+        assertTrue(activity.uiNanos <= FRAME_BUDGET_NANOS);
+        assertTrue(invalidations() <= brushes.length * MAX_INVALIDATIONS_PER_BRUSH);
+    }
+
+    // Run the activity's RSSI timer task on a background thread at the given rate. After each
+    // tick, the main looper is advanced to every vsync pulse that has passed, which runs the
+    // Choreographer frame callbacks waiting for it. Returns the number of times the color changed.
+    private int drive(int rateHz, long durationMillis) throws Exception {
+        Scheduler scheduler = Robolectric.getForegroundThreadScheduler();
+        long startMillis = scheduler.getCurrentTime();
+        long durationNanos = TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        long tickNanos = TimeUnit.SECONDS.toNanos(1) / rateHz;
+        long frame = 0;
+        int colorChanges = 0;
+        for (long elapsedNanos = 0; elapsedNanos < durationNanos; elapsedNanos += tickNanos) {
+            int before = activity.colorMapper.getLevel();
+            timerThread.submit(activity.rssiTimerTask).get();
+            if (activity.colorMapper.getLevel() != before) {
+                colorChanges++;
+            }
+            while (frameNanos(frame + 1) <= elapsedNanos + tickNanos) {
+                frame++;
+                scheduler.advanceTo(startMillis
+                        + TimeUnit.NANOSECONDS.toMillis(frameNanos(frame)));
+            }
+        }
+        return colorChanges;
+    }
+
+    // The time of the given vsync pulse, counted from the start of a drive
+    private static long frameNanos(long frame) {
+        return frame * TimeUnit.SECONDS.toNanos(1) / FRAMES_PER_SECOND;
+    }
+
+    // Run everything that is waiting on the main looper, up to and including the next vsync pulse
+    private void idle() {
+        Robolectric.getForegroundThreadScheduler().advanceBy(
+                TimeUnit.NANOSECONDS.toMillis(frameNanos(1)) + 1, TimeUnit.MILLISECONDS);
+    }
+
+    private void swipe(float fromX, float fromY, float toX, float toY) {
+        long now = SystemClock.uptimeMillis();
+        MotionEvent down = MotionEvent.obtain(now, now, MotionEvent.ACTION_DOWN, fromX, fromY, 0);
+        MotionEvent up = MotionEvent.obtain(now, now + 100, MotionEvent.ACTION_UP, toX, toY, 0);
+        activity.onTouchEvent(down);
+        activity.onTouchEvent(up);
+        down.recycle();
+        up.recycle();
+    }
+
+    private void resetCounters() {
+        activity.uiMessages = 0;
+        activity.uiNanos = 0;
+        for (TestMainActivity.CountingImageView brush : brushes) {
+            brush.invalidations = 0;
+        }
+    }
+
+    private long invalidations() {
+        long total = 0;
+        for (TestMainActivity.CountingImageView brush : brushes) {
+            total += brush.invalidations;
+        }
+        return total;
+    }
+}
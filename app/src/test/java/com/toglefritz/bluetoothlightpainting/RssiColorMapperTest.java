@@ -0,0 +1,45 @@
+package com.toglefritz.bluetoothlightpainting;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link RssiColorMapper}. The allocation check for the whole path from an
+ * RSSI reading to a brush update is in {@link MainActivityAllocationTest}.
+ */
+public class RssiColorMapperTest {
+
+    @Test
+    public void strongSignal_isRed() throws Exception {
+        RssiColorMapper mapper = new RssiColorMapper();
+        mapper.onRssi(-1);
+        assertEquals(0xFFFF0000, RssiColorMapper.colorForLevel(mapper.getLevel()));
+    }
+
+    @Test
+    public void weakSignal_isBlue() throws Exception {
+        RssiColorMapper mapper = new RssiColorMapper();
+        mapper.onRssi(-40);
+        assertEquals(0xFF0000FF, RssiColorMapper.colorForLevel(mapper.getLevel()));
+    }
+
+    @Test
+    public void sameReading_doesNotRequestRedraw() throws Exception {
+        RssiColorMapper mapper = new RssiColorMapper();
+        assertTrue(mapper.onRssi(-8));
+        assertFalse(mapper.onRssi(-8));
+        assertTrue(mapper.onRssi(-3));
+    }
+
+    @Test
+    public void shrinkRange_stopsAtMinimumWidth() throws Exception {
+        RssiColorMapper mapper = new RssiColorMapper();
+        while (mapper.shrinkRange()) {
+            // Keep shrinking until the mapper refuses
+        }
+        assertEquals(mapper.rssiMax + 5, mapper.getRssiMin());
+        mapper.expandRange();
+        assertEquals(mapper.rssiMax + 6, mapper.getRssiMin());
+    }
+}
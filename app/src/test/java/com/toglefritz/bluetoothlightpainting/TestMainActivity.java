@@ -0,0 +1,93 @@
+package com.toglefritz.bluetoothlightpainting;
+
+import android.content.Context;
+import android.graphics.Rect;
+import android.os.Bundle;
+import android.support.v4.view.LayoutInflaterCompat;
+import android.support.v4.view.LayoutInflaterFactory;
+import android.support.v7.widget.AppCompatImageView;
+import android.util.AttributeSet;
+import android.view.View;
+
+import java.util.TimerTask;
+
+/**
+ * MainActivity connected to a {@link FakeGatt} instead of a real Bluetooth device. The RSSI timer
+ * task is kept for the tests to run instead of being scheduled on a java.util.Timer, every brush
+ * update is counted and timed, and the brushes in the layout are inflated as
+ * {@link CountingImageView}s.
+ */
+public class TestMainActivity extends MainActivity {
+    FakeGatt fakeGatt;
+    TimerTask rssiTimerTask;
+    long rssiTimerPeriodMillis;
+    int uiMessages = 0;
+    long uiNanos = 0;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        // AppCompat only installs its own factory if there is none yet, so this one has to go in
+        // first. Every other tag is left to the default inflater.
+        LayoutInflaterCompat.setFactory(getLayoutInflater(), new LayoutInflaterFactory() {
+            @Override
+            public View onCreateView(View parent, String name, Context context,
+                                     AttributeSet attrs) {
+                if ("ImageView".equals(name)) {
+                    return new CountingImageView(context, attrs);
+                }
+                return null;
+            }
+        });
+        super.onCreate(savedInstanceState);
+    }
+
+    @Override
+    RssiSource connectRssiSource(String selectedDevice) {
+        fakeGatt = new FakeGatt(mGattCallback);
+        return fakeGatt;
+    }
+
+    @Override
+    void scheduleRssiTimer(TimerTask task, long periodMillis) {
+        rssiTimerTask = task;
+        rssiTimerPeriodMillis = periodMillis;
+    }
+
+    @Override
+    void updateBrushes() {
+        uiMessages++;
+        long start = System.nanoTime();
+        super.updateBrushes();
+        uiNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * An ImageView that counts how many times it has been invalidated, through any of the
+     * invalidate methods.
+     */
+    static class CountingImageView extends AppCompatImageView {
+        int invalidations = 0;
+
+        CountingImageView(Context context, AttributeSet attrs) {
+            super(context, attrs);
+        }
+
+        @Override
+        public void invalidate() {
+            invalidations++;
+            super.invalidate();
+        }
+
+        @Override
+        public void invalidate(Rect dirty) {
+            invalidations++;
+            super.invalidate(dirty);
+        }
+
+        @Override
+        public void invalidate(int l, int t, int r, int b) {
+            invalidations++;
+            super.invalidate(l, t, r, b);
+        }
+    }
+}